@@ -1,6 +1,7 @@
 package com.engineersbox.pcsplines;
 
 import com.engineersbox.pcsplines.utils.OpenCLUtils;
+import com.engineersbox.pcsplines.utils.PointUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.jocl.Pointer;
 import org.jocl.Sizeof;
@@ -15,7 +16,6 @@ import static org.jocl.CL.*;
 
 public class BezierCurve extends JComponent {
 
-    private static final String COMPUTE_CONTROL_POINTS_KERNEL_NAME = "computeBezierControlPoints";
     private final float smoothFactor;
     private final Point2D[] initialPoints;
     private final transient OpenCLParams openclParams;
@@ -25,21 +25,47 @@ public class BezierCurve extends JComponent {
                        final float smoothFactor,
                        final OpenCLParams openclParams,
                        final boolean useGpuAcceleration) {
+        this(points, smoothFactor, openclParams, useGpuAcceleration, null);
+    }
+
+    public BezierCurve(final Point2D[] points,
+                       final float smoothFactor,
+                       final OpenCLParams openclParams,
+                       final boolean useGpuAcceleration,
+                       final ControlPointCache controlPointCache) {
         this.initialPoints = points;
         this.smoothFactor = smoothFactor;
         this.openclParams = openclParams;
-        this.bezierPoints = useGpuAcceleration ? calculateControlPointsGPU() : calculateControlPointsCPU();
+        if (!useGpuAcceleration) {
+            this.bezierPoints = calculateControlPointsCPU();
+            return;
+        }
+        openclParams.requireSupportedSmoothFactor(smoothFactor);
+        final double[] flattenedPoints = PointUtils.flatten(points);
+        final double[] controlPoints = controlPointCache != null
+                ? controlPointCache.computeIfAbsent(
+                        flattenedPoints,
+                        smoothFactor,
+                        openclParams.getBuildOptions(),
+                        this::calculateControlPointsGPU
+                )
+                : calculateControlPointsGPU(flattenedPoints);
+        this.bezierPoints = PointUtils.unflatten(controlPoints);
+    }
+
+    public BezierCurve(final Point2D[] points,
+                       final float smoothFactor,
+                       final SplineService splineService) {
+        this.initialPoints = points;
+        this.smoothFactor = smoothFactor;
+        this.openclParams = null;
+        this.bezierPoints = splineService.computeControlPoints(points, smoothFactor);
     }
 
-    private Point2D[] calculateControlPointsGPU() {
-        final int flattenedPointsLength = this.initialPoints.length * 2;
-        final double[] flattenedPoints = new double[flattenedPointsLength];
+    private double[] calculateControlPointsGPU(final double[] flattenedPoints) {
+        final int flattenedPointsLength = flattenedPoints.length;
         final int controlPointsLength = 4 * (this.initialPoints.length - 2);
         final double[] controlPoints = new double[controlPointsLength];
-        for (int i = 0; i < this.initialPoints.length; i++) {
-            flattenedPoints[(i * 2)] = this.initialPoints[i].getX();
-            flattenedPoints[(i * 2) + 1] = this.initialPoints[i].getY();
-        }
         final cl_mem deviceInitialPoints = clCreateBuffer(
                 this.openclParams.getContext(),
                 CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR,
@@ -60,7 +86,6 @@ public class BezierCurve extends JComponent {
         );
         if (result != CL_SUCCESS) {
             clReleaseMemObject(deviceInitialPoints);
-            this.openclParams.releaseAll(null);
             throw new IllegalStateException("Unable to write flattened points to device: " + stringFor_errorCode(result));
         }
         final cl_mem deviceControlPoints = clCreateBuffer(
@@ -70,7 +95,7 @@ public class BezierCurve extends JComponent {
                 null,
                 null
         );
-        final cl_kernel kernel = this.openclParams.getKernel(BezierCurve.COMPUTE_CONTROL_POINTS_KERNEL_NAME);
+        final cl_kernel kernel = this.openclParams.acquireKernel(OpenCLParams.COMPUTE_BEZIER_CONTROL_POINTS_KERNEL_NAME);
         result = OpenCLUtils.bindKernelArgs(
                 kernel,
                 Pair.of(Pointer.to(deviceInitialPoints), Sizeof.cl_mem),
@@ -80,7 +105,7 @@ public class BezierCurve extends JComponent {
         if (result != CL_SUCCESS) {
             clReleaseMemObject(deviceInitialPoints);
             clReleaseMemObject(deviceControlPoints);
-            this.openclParams.releaseAll(kernel);
+            this.openclParams.releaseKernel(OpenCLParams.COMPUTE_BEZIER_CONTROL_POINTS_KERNEL_NAME, kernel);
             throw new IllegalStateException("Unable to bind kernel args: " + stringFor_errorCode(result));
         }
         result = clEnqueueNDRangeKernel(
@@ -100,14 +125,14 @@ public class BezierCurve extends JComponent {
         if (result != CL_SUCCESS) {
             clReleaseMemObject(deviceInitialPoints);
             clReleaseMemObject(deviceControlPoints);
-            this.openclParams.releaseAll(kernel);
+            this.openclParams.releaseKernel(OpenCLParams.COMPUTE_BEZIER_CONTROL_POINTS_KERNEL_NAME, kernel);
             throw new IllegalStateException("Unable to execute kernel: " + stringFor_errorCode(result));
         }
         result = clFinish(this.openclParams.getQueue());
         if (result != CL_SUCCESS) {
             clReleaseMemObject(deviceInitialPoints);
             clReleaseMemObject(deviceControlPoints);
-            this.openclParams.releaseAll(kernel);
+            this.openclParams.releaseKernel(OpenCLParams.COMPUTE_BEZIER_CONTROL_POINTS_KERNEL_NAME, kernel);
             throw new IllegalStateException("Kernel did not finish successfully: " + stringFor_errorCode(result));
         }
         result = clEnqueueReadBuffer(
@@ -123,18 +148,11 @@ public class BezierCurve extends JComponent {
         );
         clReleaseMemObject(deviceInitialPoints);
         clReleaseMemObject(deviceControlPoints);
-        this.openclParams.releaseAll(kernel);
+        this.openclParams.releaseKernel(OpenCLParams.COMPUTE_BEZIER_CONTROL_POINTS_KERNEL_NAME, kernel);
         if (result != CL_SUCCESS) {
             throw new IllegalStateException("Unable to read result from kernel: " + stringFor_errorCode(result));
         }
-        final Point2D[] finalControlPoints = new Point2D[2 * (this.initialPoints.length - 2)];
-        for (int i = 0; i < 2 * (this.initialPoints.length - 2); i++) {
-            finalControlPoints[i] = new Point2D.Double(
-                    controlPoints[(i * 2)],
-                    controlPoints[(i * 2) + 1]
-            );
-        }
-        return finalControlPoints;
+        return controlPoints;
     }
 
     private Point2D[] calculateControlPointsCPU() {
@@ -192,6 +210,7 @@ public class BezierCurve extends JComponent {
             this.jframe.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
             this.jframe.setPreferredSize(new Dimension(800, 600));
             final Container contentPane = this.jframe.getContentPane();
+            final OpenCLParams openclParams = new OpenCLParams("/kernels/bezier_points.ocl");
             final BezierCurve bezierCurve = new BezierCurve(
                     new Point2D[]{
                             new Point2D.Double(50, 53),
@@ -203,9 +222,10 @@ public class BezierCurve extends JComponent {
                             new Point2D.Double(370, 214),
                     },
                     0.5f,
-                    new OpenCLParams("/kernels/bezier_points.ocl"),
+                    openclParams,
                     true
             );
+            openclParams.releaseAll(null);
             contentPane.add(bezierCurve);
             this.jframe.setMinimumSize(new Dimension(100, 100));
             this.jframe.setVisible(true);
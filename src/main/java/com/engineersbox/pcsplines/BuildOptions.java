@@ -0,0 +1,145 @@
+package com.engineersbox.pcsplines;
+
+import java.util.*;
+
+/**
+ * Immutable set of OpenCL program build options. Defines and flags are kept sorted
+ * so that equivalent option sets render to the same string and can be used as
+ * cache keys regardless of the order they were added in.
+ */
+public final class BuildOptions {
+
+    public static final BuildOptions NONE = new BuildOptions(Collections.emptySortedMap(), Collections.emptySortedSet());
+
+    public static final String FAST_RELAXED_MATH = "-cl-fast-relaxed-math";
+    public static final String MAD_ENABLE = "-cl-mad-enable";
+
+    private final SortedMap<String, String> defines;
+    private final SortedSet<String> flags;
+
+    private BuildOptions(final SortedMap<String, String> defines,
+                         final SortedSet<String> flags) {
+        this.defines = defines;
+        this.flags = flags;
+    }
+
+    /**
+     * @param name Macro name, defined as {@code -D name}
+     * @return Options with the macro defined
+     */
+    public BuildOptions define(final String name) {
+        return define(name, (String) null);
+    }
+
+    /**
+     * @param name Macro name, defined as {@code -D name=value}
+     * @param value Macro value, inserted verbatim into the option string. Must not
+     *              contain whitespace, as the compiler would parse it as separate options
+     * @return Options with the macro defined
+     */
+    public BuildOptions define(final String name,
+                               final String value) {
+        if (name == null || name.isBlank() || name.chars().anyMatch(Character::isWhitespace)) {
+            throw new IllegalArgumentException("Invalid macro name: " + name);
+        }
+        if (value != null && (value.isEmpty() || value.chars().anyMatch(Character::isWhitespace))) {
+            throw new IllegalArgumentException("Invalid value for macro " + name + ": \"" + value + "\"");
+        }
+        final SortedMap<String, String> newDefines = new TreeMap<>(this.defines);
+        newDefines.put(name, value);
+        return new BuildOptions(Collections.unmodifiableSortedMap(newDefines), this.flags);
+    }
+
+    public BuildOptions define(final String name,
+                               final long value) {
+        return define(name, Long.toString(value));
+    }
+
+    /**
+     * Defines a macro as a single precision literal, e.g. {@code -D SMOOTH_FACTOR=0.5f}.
+     *
+     * @param name Macro name
+     * @param value Finite literal value
+     * @return Options with the macro defined
+     */
+    public BuildOptions define(final String name,
+                               final float value) {
+        if (!Float.isFinite(value)) {
+            throw new IllegalArgumentException("Cannot define " + name + " as non-finite value: " + value);
+        }
+        return define(name, Float.toString(value) + "f");
+    }
+
+    /**
+     * @param flag Compiler flag such as {@link #FAST_RELAXED_MATH}
+     * @return Options with the flag set
+     */
+    public BuildOptions flag(final String flag) {
+        if (flag == null || !flag.startsWith("-") || flag.chars().anyMatch(Character::isWhitespace)) {
+            throw new IllegalArgumentException("Invalid compiler flag: " + flag);
+        }
+        final SortedSet<String> newFlags = new TreeSet<>(this.flags);
+        newFlags.add(flag);
+        return new BuildOptions(this.defines, Collections.unmodifiableSortedSet(newFlags));
+    }
+
+    public BuildOptions fastRelaxedMath() {
+        return flag(FAST_RELAXED_MATH);
+    }
+
+    public BuildOptions madEnable() {
+        return flag(MAD_ENABLE);
+    }
+
+    public boolean isDefined(final String name) {
+        return this.defines.containsKey(name);
+    }
+
+    /**
+     * @param name Macro name
+     * @return Value the macro is defined as, or {@code null} if it is undefined or has no value
+     */
+    public String getDefineValue(final String name) {
+        return this.defines.get(name);
+    }
+
+    public boolean isEmpty() {
+        return this.defines.isEmpty() && this.flags.isEmpty();
+    }
+
+    /**
+     * @return Options as passed to {@code clBuildProgram}, or {@code null} if empty
+     */
+    public String toOptionString() {
+        return isEmpty() ? null : toString();
+    }
+
+    @Override
+    public String toString() {
+        final StringJoiner joiner = new StringJoiner(" ");
+        for (final Map.Entry<String, String> define : this.defines.entrySet()) {
+            joiner.add(define.getValue() == null
+                    ? "-D " + define.getKey()
+                    : "-D " + define.getKey() + "=" + define.getValue());
+        }
+        this.flags.forEach(joiner::add);
+        return joiner.toString();
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof BuildOptions options)) {
+            return false;
+        }
+        return this.defines.equals(options.defines) && this.flags.equals(options.flags);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.defines, this.flags);
+    }
+
+}
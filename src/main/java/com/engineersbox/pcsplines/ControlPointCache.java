@@ -0,0 +1,246 @@
+package com.engineersbox.pcsplines;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * Content-addressed cache of computed control points, keyed by a 64-bit hash of the
+ * interleaved point coordinates, the smooth factor and the {@link BuildOptions} of the
+ * program that computed them. Keying on build options keeps results from specialised
+ * builds (e.g. {@code -cl-fast-relaxed-math}) apart from those of a precise build, so one
+ * cache can safely be shared between several {@link OpenCLParams}.
+ * <br/><br/>
+ * Entries hold both the input coordinates and the resulting control points as packed
+ * doubles, either on-heap or in direct (off-heap) buffers. The input is compared on
+ * lookup so a hash collision is treated as a miss rather than returning the wrong
+ * curve. Entries are evicted in least-recently-used order once the total size of the
+ * stored coordinates exceeds the byte budget.
+ */
+public class ControlPointCache {
+
+    // Rough per-entry bookkeeping cost (map node, entry object, buffer headers)
+    private static final long ENTRY_OVERHEAD_BYTES = 128;
+    private static final long HASH_SEED = 0x2545F4914F6CDD1DL;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final long maxBytes;
+    private final boolean offHeap;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private record Entry(DoubleBuffer points,
+                         float smoothFactor,
+                         BuildOptions buildOptions,
+                         DoubleBuffer controlPoints,
+                         long bytes) {
+
+        boolean matches(final double[] otherPoints,
+                        final float otherSmoothFactor,
+                        final BuildOptions otherBuildOptions) {
+            return Float.floatToIntBits(this.smoothFactor) == Float.floatToIntBits(otherSmoothFactor)
+                    && this.buildOptions.equals(otherBuildOptions)
+                    && this.points.equals(DoubleBuffer.wrap(otherPoints));
+        }
+
+        double[] copyControlPoints() {
+            final double[] result = new double[this.controlPoints.capacity()];
+            this.controlPoints.get(0, result);
+            return result;
+        }
+    }
+
+    /**
+     * @param maxBytes Budget for stored coordinates and per-entry overhead
+     * @param offHeap Whether to store coordinates in direct buffers outside the Java heap
+     */
+    public ControlPointCache(final long maxBytes,
+                             final boolean offHeap) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache byte budget must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Looks up control points previously computed for the given input.
+     *
+     * @param points Interleaved {@code [x0, y0, x1, y1, ...]} point coordinates
+     * @param smoothFactor Smoothing factor the control points were computed with
+     * @param buildOptions Build options of the program computing the control points
+     * @return Copy of the cached interleaved control point coordinates, or {@code null} on a miss
+     */
+    public double[] get(final double[] points,
+                        final float smoothFactor,
+                        final BuildOptions buildOptions) {
+        final long hash = hash(points, smoothFactor, buildOptions);
+        this.lock.lock();
+        try {
+            final Entry entry = this.entries.get(hash);
+            if (entry != null && entry.matches(points, smoothFactor, buildOptions)) {
+                this.hits.increment();
+                return entry.copyControlPoints();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        this.misses.increment();
+        return null;
+    }
+
+    /**
+     * Stores computed control points, evicting least recently used entries to stay
+     * within the byte budget. Results larger than the whole budget are not stored.
+     *
+     * @param points Interleaved {@code [x0, y0, x1, y1, ...]} point coordinates
+     * @param smoothFactor Smoothing factor the control points were computed with
+     * @param buildOptions Build options of the program that computed the control points
+     * @param controlPoints Interleaved control point coordinates
+     */
+    public void put(final double[] points,
+                    final float smoothFactor,
+                    final BuildOptions buildOptions,
+                    final double[] controlPoints) {
+        final long bytes = ((long) points.length + controlPoints.length) * Double.BYTES + ENTRY_OVERHEAD_BYTES;
+        if (bytes > this.maxBytes) {
+            return;
+        }
+        final long hash = hash(points, smoothFactor, buildOptions);
+        final Entry entry = new Entry(
+                store(points),
+                smoothFactor,
+                buildOptions,
+                store(controlPoints),
+                bytes
+        );
+        this.lock.lock();
+        try {
+            final Entry previous = this.entries.put(hash, entry);
+            if (previous != null) {
+                this.currentBytes -= previous.bytes();
+            }
+            this.currentBytes += bytes;
+            final Iterator<Map.Entry<Long, Entry>> eldest = this.entries.entrySet().iterator();
+            while (this.currentBytes > this.maxBytes && eldest.hasNext()) {
+                this.currentBytes -= eldest.next().getValue().bytes();
+                eldest.remove();
+                this.evictions.increment();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns cached control points for the input, computing and storing them on a miss.
+     * The computation runs outside the cache lock, so concurrent misses for the same
+     * input may each compute it.
+     *
+     * @param points Interleaved {@code [x0, y0, x1, y1, ...]} point coordinates
+     * @param smoothFactor Smoothing factor to compute control points with
+     * @param buildOptions Build options of the program computing the control points
+     * @param compute Computes interleaved control point coordinates from the points
+     * @return Interleaved control point coordinates
+     */
+    public double[] computeIfAbsent(final double[] points,
+                                    final float smoothFactor,
+                                    final BuildOptions buildOptions,
+                                    final UnaryOperator<double[]> compute) {
+        final double[] cached = get(points, smoothFactor, buildOptions);
+        if (cached != null) {
+            return cached;
+        }
+        final double[] controlPoints = compute.apply(points);
+        put(points, smoothFactor, buildOptions, controlPoints);
+        return controlPoints;
+    }
+
+    private DoubleBuffer store(final double[] values) {
+        final DoubleBuffer buffer = this.offHeap
+                ? ByteBuffer.allocateDirect(values.length * Double.BYTES)
+                        .order(ByteOrder.nativeOrder())
+                        .asDoubleBuffer()
+                : DoubleBuffer.allocate(values.length);
+        buffer.put(0, values);
+        return buffer;
+    }
+
+    static long hash(final double[] points,
+                     final float smoothFactor,
+                     final BuildOptions buildOptions) {
+        long hash = HASH_SEED ^ points.length;
+        for (final double value : points) {
+            hash = (hash ^ mix(Double.doubleToLongBits(value))) * HASH_MULTIPLIER;
+        }
+        hash = (hash ^ mix(Float.floatToIntBits(smoothFactor))) * HASH_MULTIPLIER;
+        hash = (hash ^ mix(buildOptions.hashCode())) * HASH_MULTIPLIER;
+        return mix(hash);
+    }
+
+    // MurmurHash3 64-bit finaliser
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    public void clear() {
+        this.lock.lock();
+        try {
+            this.entries.clear();
+            this.currentBytes = 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    public long getSizeBytes() {
+        this.lock.lock();
+        try {
+            return this.currentBytes;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int getEntryCount() {
+        this.lock.lock();
+        try {
+            return this.entries.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+}
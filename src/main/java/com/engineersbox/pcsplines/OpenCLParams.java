@@ -1,25 +1,37 @@
 package com.engineersbox.pcsplines;
 
+import com.engineersbox.pcsplines.utils.OpenCLUtils;
 import org.apache.commons.lang3.ClassLoaderUtils;
 import org.jocl.*;
 
-import java.io.IOException;
-import java.net.URISyntaxException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static org.jocl.CL.*;
 
 public class OpenCLParams {
 
+    public static final String COMPUTE_BEZIER_CONTROL_POINTS_KERNEL_NAME = "computeBezierControlPoints";
+    public static final String SMOOTH_FACTOR_DEFINE = "SMOOTH_FACTOR";
+
     private final cl_context context;
     private final cl_command_queue queue;
     private final cl_program program;
     private final cl_device_id device;
+    private final BuildOptions buildOptions;
+    private final boolean ownsContext;
+    private final Map<String, Queue<cl_kernel>> kernelPool = new ConcurrentHashMap<>();
 
     public OpenCLParams(final String filePath) {
+        this(filePath, BuildOptions.NONE);
+    }
+
+    public OpenCLParams(final String filePath,
+                        final BuildOptions buildOptions) {
+        this.buildOptions = buildOptions;
+        this.ownsContext = true;
         final long deviceType = CL_DEVICE_TYPE_ALL;
         CL.setExceptionsEnabled(true);
 
@@ -71,12 +83,7 @@ public class OpenCLParams {
                 null
         );
 
-        final String programCode;
-        try {
-            programCode = Files.readString(Paths.get(Objects.requireNonNull(getClass().getResource(filePath)).toURI()));
-        } catch (IOException | URISyntaxException e) {
-            throw new RuntimeException(e);
-        }
+        final String programCode = OpenCLUtils.readResource(filePath);
         this.program = clCreateProgramWithSource(
                 this.context,
                 1,
@@ -88,16 +95,75 @@ public class OpenCLParams {
                 this.program,
                 0,
                 null,
-                null,
+                buildOptions.toOptionString(),
                 null,
                 null
         );
     }
 
+    /**
+     * Creates params sharing the context, device and command queue of {@code shared}, but with
+     * a separately built program and its own kernel pool. Used by {@link ProgramRegistry} to
+     * expose program variants, which remain owned by the registry.
+     *
+     * @param shared Params owning the context
+     * @param program Program built on the context of {@code shared}
+     * @param buildOptions Options the program was built with
+     */
+    OpenCLParams(final OpenCLParams shared,
+                 final cl_program program,
+                 final BuildOptions buildOptions) {
+        this.context = shared.context;
+        this.queue = shared.queue;
+        this.device = shared.device;
+        this.program = program;
+        this.buildOptions = buildOptions;
+        this.ownsContext = false;
+    }
+
     public cl_context getContext() {
         return this.context;
     }
 
+    public BuildOptions getBuildOptions() {
+        return this.buildOptions;
+    }
+
+    /**
+     * Programs built with {@code -D SMOOTH_FACTOR=<value>} ignore the smooth factor kernel
+     * argument, so any other requested value would silently produce (and cache) results
+     * for the baked value instead.
+     *
+     * @param smoothFactor Requested smoothing factor
+     * @throws IllegalArgumentException If the program has a different smooth factor baked in
+     */
+    public void requireSupportedSmoothFactor(final float smoothFactor) {
+        if (!this.buildOptions.isDefined(SMOOTH_FACTOR_DEFINE)) {
+            return;
+        }
+        final String bakedValue = this.buildOptions.getDefineValue(SMOOTH_FACTOR_DEFINE);
+        float bakedSmoothFactor = Float.NaN;
+        if (bakedValue != null) {
+            try {
+                bakedSmoothFactor = Float.parseFloat(bakedValue);
+            } catch (final NumberFormatException e) {
+                // Not a plain literal, cannot be verified so treated as a mismatch
+            }
+        }
+        if (Float.compare(bakedSmoothFactor, smoothFactor) != 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Smooth factor %s does not match %s=%s baked into the kernel build",
+                    smoothFactor,
+                    SMOOTH_FACTOR_DEFINE,
+                    bakedValue
+            ));
+        }
+    }
+
+    public cl_device_id getDevice() {
+        return this.device;
+    }
+
     public cl_command_queue getQueue() {
         return this.queue;
     }
@@ -106,6 +172,36 @@ public class OpenCLParams {
         return clCreateKernel(this.program, kernelName, null);
     }
 
+    /**
+     * Borrows a kernel instance from the pool for the given kernel name, creating
+     * a new one if none are idle. Kernel arguments are per-instance state and
+     * {@code clSetKernelArg} is not thread-safe, so each concurrent caller needs
+     * its own instance. Return it with {@link #releaseKernel(String, cl_kernel)}.
+     *
+     * @param kernelName Name of the kernel function in the program
+     * @return Kernel instance exclusively owned by the caller until released
+     */
+    public cl_kernel acquireKernel(final String kernelName) {
+        final cl_kernel kernel = this.kernelPool.computeIfAbsent(
+                kernelName,
+                (final String name) -> new ConcurrentLinkedQueue<>()
+        ).poll();
+        return kernel != null ? kernel : getKernel(kernelName);
+    }
+
+    /**
+     * Returns a kernel instance obtained from {@link #acquireKernel(String)} to the pool.
+     *
+     * @param kernelName Name of the kernel function in the program
+     * @param kernel Kernel instance to return
+     */
+    public void releaseKernel(final String kernelName, final cl_kernel kernel) {
+        this.kernelPool.computeIfAbsent(
+                kernelName,
+                (final String name) -> new ConcurrentLinkedQueue<>()
+        ).offer(kernel);
+    }
+
     public cl_program getProgram() {
         return this.program;
     }
@@ -123,11 +219,27 @@ public class OpenCLParams {
         return result != CL_SUCCESS ? -1 : workGroupSize[0];
     }
 
+    /**
+     * Releases the given kernel and all pooled kernels. For params created by this class from
+     * a kernel source, the program, command queue and context are released as well. For
+     * program variants from a {@link ProgramRegistry} those are owned elsewhere and left intact.
+     *
+     * @param kernel Additional kernel to release, may be {@code null}
+     */
     public void releaseAll(final cl_kernel kernel) {
-        clReleaseProgram(this.program);
         if (kernel != null) {
             clReleaseKernel(kernel);
         }
+        for (final Queue<cl_kernel> pooled : this.kernelPool.values()) {
+            cl_kernel pooledKernel;
+            while ((pooledKernel = pooled.poll()) != null) {
+                clReleaseKernel(pooledKernel);
+            }
+        }
+        if (!this.ownsContext) {
+            return;
+        }
+        clReleaseProgram(this.program);
         clReleaseCommandQueue(this.queue);
         clReleaseContext(this.context);
     }
@@ -0,0 +1,209 @@
+package com.engineersbox.pcsplines;
+
+import com.engineersbox.pcsplines.utils.OpenCLUtils;
+import org.jocl.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.jocl.CL.*;
+
+/**
+ * Builds and caches program variants on the context of an existing {@link OpenCLParams},
+ * so that kernels from several source files, and specialised builds of the same source,
+ * can share one context and command queue.
+ * <br/><br/>
+ * Each variant is identified by its source paths and {@link BuildOptions}, and is built
+ * once on first request. Passing several source paths builds them as a single program,
+ * which OpenCL treats as the concatenation of the sources in the given order.
+ * <br/><br/>
+ * {@link #getParams(BuildOptions, String...)} wraps a variant as an {@link OpenCLParams} on the
+ * shared context, so a specialised build can back a {@link SplineService} or use the kernel pool.
+ */
+public class ProgramRegistry {
+
+    private final OpenCLParams openclParams;
+    private final Map<String, String> sources = new ConcurrentHashMap<>();
+    private final Map<Variant, CompletableFuture<cl_program>> programs = new ConcurrentHashMap<>();
+    private final Map<Variant, OpenCLParams> variantParams = new ConcurrentHashMap<>();
+    private final Map<Variant, Long> buildTimesNanos = new ConcurrentHashMap<>();
+
+    private record Variant(List<String> sourcePaths,
+                           BuildOptions options) {
+    }
+
+    public ProgramRegistry(final OpenCLParams openclParams) {
+        this.openclParams = openclParams;
+    }
+
+    /**
+     * Returns the program built from the given sources and options, building it on first use.
+     * The build runs on the first requesting thread outside of any lock, while concurrent
+     * requests for the same variant wait for it. A failed build is not cached.
+     *
+     * @param options Build options for this variant
+     * @param sourcePaths Classpath resource paths of the kernel sources
+     * @return Built program owned by this registry
+     */
+    public cl_program getProgram(final BuildOptions options,
+                                 final String... sourcePaths) {
+        if (sourcePaths.length == 0) {
+            throw new IllegalArgumentException("At least one kernel source is required");
+        }
+        final Variant variant = new Variant(List.of(sourcePaths), options);
+        CompletableFuture<cl_program> program = this.programs.get(variant);
+        if (program == null) {
+            final CompletableFuture<cl_program> newProgram = new CompletableFuture<>();
+            program = this.programs.putIfAbsent(variant, newProgram);
+            if (program == null) {
+                program = newProgram;
+                try {
+                    newProgram.complete(build(variant));
+                } catch (final RuntimeException e) {
+                    this.programs.remove(variant, newProgram);
+                    newProgram.completeExceptionally(e);
+                }
+            }
+        }
+        try {
+            return program.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns params for the given program variant that share the registry's context and
+     * command queue, building the variant on first use. The returned params are owned by
+     * the registry and are released by {@link #releaseAll()}.
+     *
+     * @param options Build options for this variant
+     * @param sourcePaths Classpath resource paths of the kernel sources
+     * @return Params whose program is the requested variant
+     */
+    public OpenCLParams getParams(final BuildOptions options,
+                                  final String... sourcePaths) {
+        final cl_program program = getProgram(options, sourcePaths);
+        return this.variantParams.computeIfAbsent(
+                new Variant(List.of(sourcePaths), options),
+                (final Variant variant) -> new OpenCLParams(this.openclParams, program, options)
+        );
+    }
+
+    /**
+     * Creates a new kernel instance from the given program variant. As with
+     * {@link OpenCLParams#getKernel(String)} the caller owns and releases the kernel.
+     *
+     * @param kernelName Name of the kernel function
+     * @param options Build options for this variant
+     * @param sourcePaths Classpath resource paths of the kernel sources
+     * @return New kernel instance
+     */
+    public cl_kernel getKernel(final String kernelName,
+                               final BuildOptions options,
+                               final String... sourcePaths) {
+        return clCreateKernel(getProgram(options, sourcePaths), kernelName, null);
+    }
+
+    /**
+     * @param options Build options for this variant
+     * @param sourcePaths Classpath resource paths of the kernel sources
+     * @return Time taken to build the variant in nanoseconds, or -1 if it has not been built
+     */
+    public long getBuildTimeNanos(final BuildOptions options,
+                                  final String... sourcePaths) {
+        return this.buildTimesNanos.getOrDefault(new Variant(List.of(sourcePaths), options), -1L);
+    }
+
+    private cl_program build(final Variant variant) {
+        final String[] programSources = variant.sourcePaths()
+                .stream()
+                .map((final String path) -> this.sources.computeIfAbsent(path, OpenCLUtils::readResource))
+                .toArray(String[]::new);
+        final long start = System.nanoTime();
+        final cl_program program = clCreateProgramWithSource(
+                this.openclParams.getContext(),
+                programSources.length,
+                programSources,
+                null,
+                null
+        );
+        try {
+            clBuildProgram(
+                    program,
+                    0,
+                    null,
+                    variant.options().toOptionString(),
+                    null,
+                    null
+            );
+        } catch (final CLException e) {
+            final String buildLog = getBuildLog(program);
+            clReleaseProgram(program);
+            throw new IllegalStateException(String.format(
+                    "Unable to build %s with options [%s]: %s%n%s",
+                    variant.sourcePaths(),
+                    variant.options(),
+                    e.getMessage(),
+                    buildLog
+            ), e);
+        }
+        this.buildTimesNanos.put(variant, System.nanoTime() - start);
+        return program;
+    }
+
+    private String getBuildLog(final cl_program program) {
+        try {
+            return readBuildLog(program);
+        } catch (final CLException e) {
+            return "<build log unavailable: " + e.getMessage() + ">";
+        }
+    }
+
+    private String readBuildLog(final cl_program program) {
+        final long[] logSize = new long[1];
+        clGetProgramBuildInfo(
+                program,
+                this.openclParams.getDevice(),
+                CL_PROGRAM_BUILD_LOG,
+                0,
+                null,
+                logSize
+        );
+        final byte[] log = new byte[(int) logSize[0]];
+        clGetProgramBuildInfo(
+                program,
+                this.openclParams.getDevice(),
+                CL_PROGRAM_BUILD_LOG,
+                log.length,
+                Pointer.to(log),
+                null
+        );
+        return new String(log, StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Releases every program built by this registry, along with the pooled kernels of params
+     * returned by {@link #getParams(BuildOptions, String...)}. The context of the underlying
+     * {@link OpenCLParams} is left intact.
+     */
+    public void releaseAll() {
+        this.variantParams.values().forEach((final OpenCLParams params) -> params.releaseAll(null));
+        this.variantParams.clear();
+        for (final CompletableFuture<cl_program> program : this.programs.values()) {
+            if (program.isDone() && !program.isCompletedExceptionally()) {
+                clReleaseProgram(program.join());
+            }
+        }
+        this.programs.clear();
+        this.buildTimesNanos.clear();
+    }
+
+}
@@ -0,0 +1,407 @@
+package com.engineersbox.pcsplines;
+
+import com.engineersbox.pcsplines.utils.OpenCLUtils;
+import com.engineersbox.pcsplines.utils.PointUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_kernel;
+import org.jocl.cl_mem;
+
+import java.awt.geom.Point2D;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.jocl.CL.*;
+
+/**
+ * Thread-safe front end for computing Bézier control points on a shared {@link OpenCLParams}.
+ * <br/><br/>
+ * Callers on any number of threads (including virtual threads, as nothing here blocks while
+ * holding a monitor) submit point sets which are queued for a single dispatcher thread. The
+ * dispatcher coalesces requests that arrive within {@code maxBatchLatency} of the first queued
+ * request, up to {@code maxBatchSize} requests, and computes them in one kernel launch per
+ * distinct smooth factor.
+ * <br/><br/>
+ * Batching works by concatenating each request's points into one buffer. The kernel computes
+ * control points for every consecutive triple of points, so the two triples straddling each
+ * boundary between requests produce junk which is simply skipped when splitting the results.
+ * <br/><br/>
+ * If a {@link ControlPointCache} is provided, cached results are returned without queueing
+ * and computed results are stored in it as their batch completes.
+ * <br/><br/>
+ * Futures are never completed on the dispatcher thread. Results of a launch are handed to
+ * the completion executor ({@link ForkJoinPool#commonPool()} by default), so dependent stages
+ * attached without {@code *Async} run there, or on the submitting thread for results that
+ * are already available (cache hits, fewer than three points). Such stages may therefore
+ * submit further requests, block on them or close the service without stalling batching.
+ */
+public class SplineService implements AutoCloseable {
+
+    private static final long IDLE_POLL_INTERVAL_MS = 50;
+
+    private final OpenCLParams openclParams;
+    private final ControlPointCache controlPointCache;
+    private final int maxBatchSize;
+    private final long maxBatchLatencyNanos;
+    private final BlockingQueue<Request> pending = new LinkedBlockingQueue<>();
+    private final Executor completionExecutor;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    private final LongAdder launchCount = new LongAdder();
+    private final LongAdder launchNanos = new LongAdder();
+    private final LongAdder launchedRequests = new LongAdder();
+
+    private record Request(double[] points,
+                           float smoothFactor,
+                           CompletableFuture<double[]> result) {
+
+        int pointCount() {
+            return this.points.length / 2;
+        }
+    }
+
+    public SplineService(final OpenCLParams openclParams,
+                         final int maxBatchSize,
+                         final Duration maxBatchLatency) {
+        this(openclParams, maxBatchSize, maxBatchLatency, null);
+    }
+
+    public SplineService(final OpenCLParams openclParams,
+                         final int maxBatchSize,
+                         final Duration maxBatchLatency,
+                         final ControlPointCache controlPointCache) {
+        this(openclParams, maxBatchSize, maxBatchLatency, controlPointCache, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param openclParams Params whose program provides the control point kernel
+     * @param maxBatchSize Maximum number of requests coalesced into one batch
+     * @param maxBatchLatency How long the dispatcher waits for more requests after the first
+     * @param controlPointCache Optional cache in front of the kernel, may be {@code null}
+     * @param completionExecutor Executor that completes result futures, off the dispatcher thread
+     */
+    public SplineService(final OpenCLParams openclParams,
+                         final int maxBatchSize,
+                         final Duration maxBatchLatency,
+                         final ControlPointCache controlPointCache,
+                         final Executor completionExecutor) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Max batch size must be at least 1: " + maxBatchSize);
+        }
+        if (maxBatchLatency.isNegative()) {
+            throw new IllegalArgumentException("Max batch latency must not be negative: " + maxBatchLatency);
+        }
+        this.openclParams = openclParams;
+        this.controlPointCache = controlPointCache;
+        this.completionExecutor = Objects.requireNonNull(completionExecutor, "Completion executor must not be null");
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchLatencyNanos = maxBatchLatency.toNanos();
+        this.dispatcher = new Thread(this::dispatchLoop, "spline-service-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Queues a point set for control point computation.
+     *
+     * @param points Points to interpolate
+     * @param smoothFactor Smoothing factor passed to the kernel
+     * @return Future completed with {@code 2 * (points.length - 2)} control points
+     */
+    public CompletableFuture<Point2D[]> submit(final Point2D[] points,
+                                              final float smoothFactor) {
+        return submitFlattened(PointUtils.flatten(points), smoothFactor).thenApply(PointUtils::unflatten);
+    }
+
+    /**
+     * Queues a point set given as interleaved {@code [x0, y0, x1, y1, ...]} coordinates.
+     *
+     * @param points Interleaved point coordinates, copied before queueing
+     * @param smoothFactor Smoothing factor passed to the kernel
+     * @return Future completed with interleaved control point coordinates
+     * @throws IllegalArgumentException If {@code points} has an odd length, or the smooth
+     *                                  factor differs from one baked into the kernel build
+     */
+    public CompletableFuture<double[]> submitFlattened(final double[] points,
+                                                       final float smoothFactor) {
+        if (!this.running) {
+            throw new IllegalStateException("Spline service has been closed");
+        }
+        if (points.length % 2 != 0) {
+            throw new IllegalArgumentException("Interleaved point coordinates must have even length: " + points.length);
+        }
+        this.openclParams.requireSupportedSmoothFactor(smoothFactor);
+        // Copied since the dispatcher and cache read the points after this call returns
+        final Request request = new Request(points.clone(), smoothFactor, new CompletableFuture<>());
+        if (request.pointCount() < 3) {
+            request.result().complete(new double[0]);
+            return request.result();
+        }
+        if (this.controlPointCache != null) {
+            final double[] cached = this.controlPointCache.get(request.points(), smoothFactor, this.openclParams.getBuildOptions());
+            if (cached != null) {
+                request.result().complete(cached);
+                return request.result();
+            }
+        }
+        this.pending.offer(request);
+        // Dispatcher may have drained and exited between the running check and the offer
+        if (!this.running && this.pending.remove(request)) {
+            request.result().completeExceptionally(new IllegalStateException("Spline service has been closed"));
+        }
+        return request.result();
+    }
+
+    /**
+     * Blocking variant of {@link #submit(Point2D[], float)}.
+     *
+     * @param points Points to interpolate
+     * @param smoothFactor Smoothing factor passed to the kernel
+     * @return {@code 2 * (points.length - 2)} control points
+     */
+    public Point2D[] computeControlPoints(final Point2D[] points,
+                                         final float smoothFactor) {
+        try {
+            return submit(points, smoothFactor).join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void dispatchLoop() {
+        try {
+            pollAndLaunch();
+        } finally {
+            // Whether closed, interrupted or killed by an Error, nothing will service the
+            // queue after this point, so later submits must fail fast
+            this.running = false;
+            final List<Request> remaining = new ArrayList<>();
+            this.pending.drainTo(remaining);
+            failAll(remaining, new IllegalStateException("Spline service has been closed"));
+        }
+    }
+
+    private void pollAndLaunch() {
+        final List<Request> batch = new ArrayList<>(this.maxBatchSize);
+        while (this.running || !this.pending.isEmpty()) {
+            try {
+                final Request first = this.pending.poll(IDLE_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                final long deadline = System.nanoTime() + this.maxBatchLatencyNanos;
+                while (batch.size() < this.maxBatchSize) {
+                    final long remaining = deadline - System.nanoTime();
+                    final Request next = remaining > 0
+                            ? this.pending.poll(remaining, TimeUnit.NANOSECONDS)
+                            : this.pending.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                launchBatch(batch);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failAll(batch, new IllegalStateException("Spline service dispatcher interrupted", e));
+                break;
+            } catch (final Throwable e) {
+                failAll(batch, e);
+                throw e;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void launchBatch(final List<Request> batch) {
+        final Map<Float, List<Request>> bySmoothFactor = new LinkedHashMap<>();
+        for (final Request request : batch) {
+            bySmoothFactor.computeIfAbsent(request.smoothFactor(), (final Float key) -> new ArrayList<>()).add(request);
+        }
+        for (final Map.Entry<Float, List<Request>> group : bySmoothFactor.entrySet()) {
+            try {
+                launchGroup(group.getValue(), group.getKey());
+            } catch (final Throwable e) {
+                // Includes Errors such as an OutOfMemoryError sizing a large batch, which only
+                // affect this group and must not take down the dispatcher
+                failAll(group.getValue(), e);
+            }
+        }
+    }
+
+    private void launchGroup(final List<Request> requests,
+                             final float smoothFactor) {
+        int totalPoints = 0;
+        for (final Request request : requests) {
+            totalPoints += request.pointCount();
+        }
+        final double[] flattenedPoints = new double[totalPoints * 2];
+        int offset = 0;
+        for (final Request request : requests) {
+            System.arraycopy(request.points(), 0, flattenedPoints, offset, request.points().length);
+            offset += request.points().length;
+        }
+        final int controlPointsLength = 4 * (totalPoints - 2);
+        final double[] controlPoints = new double[controlPointsLength];
+
+        cl_mem deviceInitialPoints = null;
+        cl_mem deviceControlPoints = null;
+        final cl_kernel kernel = this.openclParams.acquireKernel(OpenCLParams.COMPUTE_BEZIER_CONTROL_POINTS_KERNEL_NAME);
+        try {
+            deviceInitialPoints = clCreateBuffer(
+                    this.openclParams.getContext(),
+                    CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR,
+                    Sizeof.cl_double * (long) flattenedPoints.length,
+                    Pointer.to(flattenedPoints),
+                    null
+            );
+            deviceControlPoints = clCreateBuffer(
+                    this.openclParams.getContext(),
+                    CL_MEM_WRITE_ONLY,
+                    Sizeof.cl_double * (long) controlPointsLength,
+                    null,
+                    null
+            );
+            int result = OpenCLUtils.bindKernelArgs(
+                    kernel,
+                    Pair.of(Pointer.to(deviceInitialPoints), Sizeof.cl_mem),
+                    Pair.of(Pointer.to(deviceControlPoints), Sizeof.cl_mem),
+                    Pair.of(Pointer.to(new float[]{smoothFactor}), Sizeof.cl_float)
+            );
+            if (result != CL_SUCCESS) {
+                throw new IllegalStateException("Unable to bind kernel args: " + stringFor_errorCode(result));
+            }
+            final long launchStart = System.nanoTime();
+            result = clEnqueueNDRangeKernel(
+                    this.openclParams.getQueue(),
+                    kernel,
+                    1,
+                    null,
+                    new long[]{2 * (totalPoints - 2L)},
+                    null,
+                    0,
+                    null,
+                    null
+            );
+            if (result != CL_SUCCESS) {
+                throw new IllegalStateException("Unable to execute kernel: " + stringFor_errorCode(result));
+            }
+            result = clEnqueueReadBuffer(
+                    this.openclParams.getQueue(),
+                    deviceControlPoints,
+                    CL_TRUE,
+                    0,
+                    Sizeof.cl_double * (long) controlPointsLength,
+                    Pointer.to(controlPoints),
+                    0,
+                    null,
+                    null
+            );
+            if (result != CL_SUCCESS) {
+                throw new IllegalStateException("Unable to read result from kernel: " + stringFor_errorCode(result));
+            }
+            this.launchNanos.add(System.nanoTime() - launchStart);
+            this.launchCount.increment();
+            this.launchedRequests.add(requests.size());
+        } finally {
+            if (deviceInitialPoints != null) {
+                clReleaseMemObject(deviceInitialPoints);
+            }
+            if (deviceControlPoints != null) {
+                clReleaseMemObject(deviceControlPoints);
+            }
+            this.openclParams.releaseKernel(OpenCLParams.COMPUTE_BEZIER_CONTROL_POINTS_KERNEL_NAME, kernel);
+        }
+
+        int pointOffset = 0;
+        for (final Request request : requests) {
+            final double[] requestControlPoints = Arrays.copyOfRange(
+                    controlPoints,
+                    4 * pointOffset,
+                    4 * (pointOffset + request.pointCount() - 2)
+            );
+            if (this.controlPointCache != null) {
+                this.controlPointCache.put(
+                        request.points(),
+                        smoothFactor,
+                        this.openclParams.getBuildOptions(),
+                        requestControlPoints
+                );
+            }
+            completeOffDispatcher(() -> request.result().complete(requestControlPoints));
+            pointOffset += request.pointCount();
+        }
+    }
+
+    private void failAll(final List<Request> requests,
+                         final Throwable cause) {
+        for (final Request request : requests) {
+            completeOffDispatcher(() -> request.result().completeExceptionally(cause));
+        }
+    }
+
+    private void completeOffDispatcher(final Runnable completion) {
+        try {
+            this.completionExecutor.execute(completion);
+        } catch (final RejectedExecutionException e) {
+            // Completing inline risks running caller stages here, but never leaves a future hanging
+            completion.run();
+        }
+    }
+
+    /**
+     * @return Number of successful kernel launches
+     */
+    public long getLaunchCount() {
+        return this.launchCount.sum();
+    }
+
+    /**
+     * @return Total wall-clock time of successful launches, from kernel enqueue until the
+     *         results have been read back, in nanoseconds
+     */
+    public long getLaunchNanos() {
+        return this.launchNanos.sum();
+    }
+
+    /**
+     * @return Number of requests computed by successful launches, excluding cache hits
+     */
+    public long getLaunchedRequestCount() {
+        return this.launchedRequests.sum();
+    }
+
+    /**
+     * Stops accepting new requests, waits for already queued requests to be computed
+     * and stops the dispatcher. The underlying {@link OpenCLParams} is not released.
+     */
+    @Override
+    public void close() {
+        this.running = false;
+        if (Thread.currentThread() == this.dispatcher) {
+            return;
+        }
+        try {
+            this.dispatcher.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
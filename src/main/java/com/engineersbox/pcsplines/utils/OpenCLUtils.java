@@ -3,7 +3,12 @@ package com.engineersbox.pcsplines.utils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.jocl.*;
 
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.Objects;
 
 import static org.jocl.CL.*;
 
@@ -64,6 +69,14 @@ public class OpenCLUtils {
         return CL_SUCCESS;
     }
 
+    public static String readResource(final String filePath) {
+        try {
+            return Files.readString(Paths.get(Objects.requireNonNull(OpenCLUtils.class.getResource(filePath)).toURI()));
+        } catch (final IOException | URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @SafeVarargs
     public static int bindKernelArgs(final cl_kernel kernel,
                                      final Pair<Pointer, Integer> ...args) {
@@ -0,0 +1,43 @@
+package com.engineersbox.pcsplines.utils;
+
+import java.awt.geom.Point2D;
+
+public class PointUtils {
+
+    private PointUtils() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Flattens points into interleaved {@code [x0, y0, x1, y1, ...]} coordinates.
+     *
+     * @param points Points to flatten
+     * @return Interleaved coordinates
+     */
+    public static double[] flatten(final Point2D[] points) {
+        final double[] flattened = new double[points.length * 2];
+        for (int i = 0; i < points.length; i++) {
+            flattened[(i * 2)] = points[i].getX();
+            flattened[(i * 2) + 1] = points[i].getY();
+        }
+        return flattened;
+    }
+
+    /**
+     * Inverse of {@link #flatten(Point2D[])}.
+     *
+     * @param coordinates Interleaved {@code [x0, y0, x1, y1, ...]} coordinates
+     * @return Points for each coordinate pair
+     */
+    public static Point2D[] unflatten(final double[] coordinates) {
+        final Point2D[] points = new Point2D[coordinates.length / 2];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new Point2D.Double(
+                    coordinates[(i * 2)],
+                    coordinates[(i * 2) + 1]
+            );
+        }
+        return points;
+    }
+
+}